@@ -62,6 +62,14 @@ dependencies {
     lwjglModules.forEach {
         runtimeOnly("org.lwjgl", it, classifier = lwjglNatives)
     }
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
 
 tasks.register<Jar>("fatJar") {
@@ -7,60 +7,93 @@ import cinnamon.model.obj.Group;
 import cinnamon.model.obj.Mesh;
 import cinnamon.utils.Maths;
 import cinnamon.utils.Resource;
+import org.joml.Vector3f;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.stream.IntStream;
 
 import static cinnamon.Client.LOGGER;
 
 public class DXMConverter {
 
-    private static final DecimalFormat df = new DecimalFormat("#.######", DecimalFormatSymbols.getInstance(Locale.US));
+    //DecimalFormat is not thread safe, and the service optimizes several models at once
+    private static final ThreadLocal<DecimalFormat> df = ThreadLocal.withInitial(() -> new DecimalFormat("#.######", DecimalFormatSymbols.getInstance(Locale.US)));
     private static final float NORMALS_EPSILON = 1e-6f;
+    private static final int READ_BLOCK = 1 << 16;
+
+    //rough per-vertex costs of welding: the formatted key string, and its map entry with the boxed index
+    private static final int STRING_BYTES = 64, MAP_ENTRY_BYTES = 64;
+
+    //rough costs of the cinnamon mesh copy: a vector per welded vertex, and per triangle a face with three lists of boxed indices
+    private static final int MESH_VERTEX_BYTES = 40, MESH_FACE_BYTES = 420;
+
+    //formatted color channels, so colored vertices do not pay for three more float formats
+    private static final String[] COLOR_CHANNELS = new String[256];
+
+    static {
+        for (int i = 0; i < COLOR_CHANNELS.length; i++)
+            COLOR_CHANNELS[i] = df.get().format(i / 255f);
+    }
 
     public static DXMModel loadDXM(String path) throws IOException {
+        return loadDXM(path, new DXMOptions());
+    }
+
+    public static DXMModel loadDXM(String path, DXMOptions options) throws IOException {
         logMessage("## Loading DXM ##");
+        DXMModel model = new DXMModel();
+
+        try (InputStream in = Files.newInputStream(resolveDLM(path))) {
+            loadData(in, model, options);
+        }
+
+        return model;
+    }
+
+    //projected peak memory of a conversion, reading only the header and group table
+    public static long estimatePeakMemory(String path, DXMOptions options) throws IOException {
+        DXMModel model = new DXMModel();
+        try (InputStream in = Files.newInputStream(resolveDLM(path))) {
+            loadLayout(in, model);
+        }
+        return estimatePeakMemory(model, options);
+    }
+
+    private static Path resolveDLM(String path) {
         boolean dxm = path.toLowerCase().endsWith(".dxm");
         Path dlmPath = Path.of(dxm ? path.substring(0, path.length() - 4) + ".dlm" : path);
 
         if (!Files.exists(dlmPath) && dxm)
             throw new RuntimeException("Unpacking of DXM files is not yet supported");
 
-        DXMModel model = new DXMModel();
-        model.header = new DXMHeader();
-
-        InputStream in = Files.newInputStream(dlmPath);
-        loadHeader(in, model.header);
-
-        int[] flags = validateHeader(model.header);
+        return dlmPath;
+    }
 
-        logMessage("Loading DXM groups...");
-        model.groups = new DXMGroup[model.header.groupCount];
-        for (int i = 0; i < model.header.groupCount; i++) {
-            model.groups[i] = new DXMGroup();
-            model.groups[i].offset = readUnsignedLong(in);
-            model.groups[i].length = readUnsignedLong(in);
+    private static void loadData(InputStream in, DXMModel model, DXMOptions options) throws IOException {
+        int[] flags = loadLayout(in, model);
 
-            short len = readUnsignedShort(in);
-            if (len > 0) {
-                byte[] texture = new byte[len - 1];
-                in.read(texture);
-                model.groups[i].texture = new String(texture);
-                in.read();
-            }
-        }
+        long peak = estimatePeakMemory(model, options);
+        logMessage("Projected peak memory: " + (peak >> 20) + " MB");
+        if (options.memoryBudget > 0 && peak > options.memoryBudget)
+            throw new RuntimeException("Projected peak memory of %d MB exceeds the budget of %d MB".formatted(peak >> 20, options.memoryBudget >> 20));
 
-        int vertcount = (int) model.header.vertexCount * 3 * Float.BYTES;
-        int texcount = (int) model.header.vertexCount * 2 * Float.BYTES;
-        int colcount = (int) model.header.vertexCount * 4 * Byte.BYTES;
+        int vertcount = (int) model.header.vertexCount * 3;
+        int texcount = (int) model.header.vertexCount * 2;
+        int colcount = (int) model.header.vertexCount;
 
         //vertex data
         logMessage("Loading DXM vertex data...");
@@ -68,13 +101,13 @@ public class DXMConverter {
         vertchunk.compressedSize = readUnsignedLong(in);
         vertchunk.uncompressedSize = readUnsignedLong(in);
 
-        model.vertex = byteToFloat(in.readNBytes(vertcount));
+        model.vertex = readFloats(in, vertcount);
 
         if (model.header.vertexCompositionFlags == flags[0]) {
-            model.normal = byteToFloat(in.readNBytes(vertcount));
-            model.uv = byteToFloat(in.readNBytes(texcount));
+            model.normal = readFloats(in, vertcount);
+            model.uv = readFloats(in, texcount);
         } else if (model.header.vertexCompositionFlags == flags[1]) {
-            model.color = in.readNBytes(colcount);
+            model.color = readInts(in, colcount);
         }
 
         //index data
@@ -85,14 +118,36 @@ public class DXMConverter {
 
         for (int i = 0; i < model.header.groupCount; i++) {
             if (model.header.indexByteCount == 2) {
-                model.groups[i].index16 = byteToShort(in.readNBytes((int) model.groups[i].length * 2));
+                model.groups[i].index16 = readShorts(in, (int) model.groups[i].length);
             } else if (model.header.indexByteCount == 4) {
-                model.groups[i].index32 = byteToInt(in.readNBytes((int) model.groups[i].length * 4));
+                model.groups[i].index32 = readInts(in, (int) model.groups[i].length);
+            }
+        }
+    }
+
+    private static int[] loadLayout(InputStream in, DXMModel model) throws IOException {
+        model.header = new DXMHeader();
+        loadHeader(in, model.header);
+
+        int[] flags = validateHeader(model.header);
+
+        logMessage("Loading DXM groups...");
+        model.groups = new DXMGroup[model.header.groupCount];
+        for (int i = 0; i < model.header.groupCount; i++) {
+            model.groups[i] = new DXMGroup();
+            model.groups[i].offset = readUnsignedLong(in);
+            model.groups[i].length = readUnsignedLong(in);
+
+            short len = readUnsignedShort(in);
+            if (len > 0) {
+                byte[] texture = new byte[len - 1];
+                in.read(texture);
+                model.groups[i].texture = new String(texture);
+                in.read();
             }
         }
 
-        in.close();
-        return model;
+        return flags;
     }
 
     public static void loadHeader(InputStream in, DXMHeader header) throws IOException {
@@ -157,71 +212,111 @@ public class DXMConverter {
         return new int[]{flagMesh, flagPC};
     }
 
-    public static void optimizeDXMModel(DXMModel model) {
-        logMessage("## Optimizing DXM ##");
+    public static long estimatePeakMemory(DXMModel model, DXMOptions options) {
+        DXMHeader header = model.header;
+        int flags = header.vertexCompositionFlags;
+
+        boolean normal = (flags & DXMVertexFlag.Normal_3_F32.bit) != 0;
+        boolean uv = (flags & DXMVertexFlag.Texcoord_2_F32.bit) != 0;
+        boolean color = (flags & DXMVertexFlag.Color_4_U8.bit) != 0;
+
+        long n = header.vertexCount;
+        int streams = 1 + (normal ? 1 : 0) + (uv ? 1 : 0);
+
+        long indexCount = 0;
+        for (DXMGroup group : model.groups)
+            indexCount += group.length;
+
+        long attributes = n * 3 * Float.BYTES;
+        if (normal) attributes += n * 3 * Float.BYTES;
+        if (uv) attributes += n * 2 * Float.BYTES;
+        if (color) attributes += n * 4;
+
+        //generated normals keep a face normal, a corner normal and two adjacency entries per corner
+        //(a loaded normal stream can still turn out to be all zeroes, so it does not rule them out)
+        boolean generated = options.generateNormals;
+        if (generated && !normal) streams++;
+        long generation = generated ? indexCount * (6L * Float.BYTES + 2L * Integer.BYTES) : 0;
+
+        long rawIndices = indexCount * header.indexByteCount;
+        long indices = indexCount * Integer.BYTES * streams;
+        long remaps = n * Integer.BYTES * streams;
+        long strings = n * STRING_BYTES * streams;
 
-        boolean normal = model.normal != null;
-        boolean uv = model.uv != null;
+        //welding holds the raw data next to one map, while remapping only holds the raw indices
+        long welding = attributes + rawIndices + remaps + strings + n * MAP_ENTRY_BYTES;
 
-        HashMap<String, Integer> vertexMap = new HashMap<>();
-        HashMap<String, Integer> normalMap = new HashMap<>();
-        HashMap<String, Integer> uvMap = new HashMap<>();
+        //colored vertices are welded a second time by position alone for the normal adjacency
+        if (generated && color && options.colors != DXMColorFormat.Ignore)
+            welding += n * (Integer.BYTES + STRING_BYTES + 3L * Float.BYTES);
+        long remapping = rawIndices + indices + remaps + strings + generation + (color ? n * 4 : 0);
 
-        ArrayList<Float> newVertexList = new ArrayList<>();
-        ArrayList<Float> newNormalList = new ArrayList<>();
-        ArrayList<Float> newUVList = new ArrayList<>();
+        //converting to a mesh copies everything welded before releasing it
+        long meshing = options.buildMesh ? indices + strings + n * MESH_VERTEX_BYTES * streams + indexCount / 3 * MESH_FACE_BYTES : 0;
 
+        return Math.max(Math.max(welding, remapping), meshing);
+    }
+
+    public static void optimizeDXMModel(DXMModel model) {
+        optimizeDXMModel(model, new DXMOptions());
+    }
+
+    public static void optimizeDXMModel(DXMModel model, DXMOptions options) {
+        logMessage("## Optimizing DXM ##");
+
+        //every stage takes ownership of its input and releases it as soon as it is consumed
         logMessage("Processing vertices...");
-        for (int i = 0; i < model.vertex.length; i += 3) {
-            float x = model.vertex[i];
-            float y = model.vertex[i + 1];
-            float z = model.vertex[i + 2];
-            String v = df.format(x) + " " + df.format(y) + " " + df.format(z);
-            if (!vertexMap.containsKey(v)) {
-                vertexMap.put(v, newVertexList.size() / 3);
-                newVertexList.add(x);
-                newVertexList.add(y);
-                newVertexList.add(z);
+        int[] vertexRemap = new int[model.vertex.length / 3];
+        if (model.color != null && options.colors != DXMColorFormat.Ignore) {
+            //colors are part of the vertex key, giving "x y z r g b" lines with the packed colors alongside
+            model.vc = new int[vertexRemap.length];
+            model.v = weld(model.vertex, 3, model.color, options.colors == DXMColorFormat.Binary, vertexRemap, model.vc);
+            model.vc = Arrays.copyOf(model.vc, model.v.length);
+        } else {
+            model.v = weld(model.vertex, 3, vertexRemap);
+        }
+        model.color = null;
+
+        //welded positions are only kept around when the normals might need to be generated
+        float[] positions = null;
+        int[] positionOf = null;
+        if (options.generateNormals && (model.normal == null || isZero(model.normal))) {
+            if (model.vc != null) {
+                //vertices split by color still share one position, otherwise color boundaries would become normal seams
+                int[] positionRemap = new int[vertexRemap.length];
+                int count = weld(model.vertex, 3, positionRemap).length;
+                positions = new float[count * 3];
+                positionOf = new int[model.v.length];
+                for (int i = 0; i < vertexRemap.length; i++) {
+                    System.arraycopy(model.vertex, i * 3, positions, positionRemap[i] * 3, 3);
+                    positionOf[vertexRemap[i]] = positionRemap[i];
+                }
+            } else {
+                positions = new float[model.v.length * 3];
+                for (int i = 0; i < vertexRemap.length; i++)
+                    System.arraycopy(model.vertex, i * 3, positions, vertexRemap[i] * 3, 3);
             }
         }
+        model.vertex = null;
 
-        if (normal) {
+        int[] normalRemap = null;
+        if (model.normal != null) {
             logMessage("Processing normals...");
-            boolean onlyZeroes = true;
-            for (int i = 0; i < model.normal.length; i += 3) {
-                float x = model.normal[i];
-                float y = model.normal[i + 1];
-                float z = model.normal[i + 2];
-                String n = df.format(x) + " " + df.format(y) + " " + df.format(z);
-                if (!normalMap.containsKey(n)) {
-                    normalMap.put(n, newNormalList.size() / 3);
-                    newNormalList.add(x);
-                    newNormalList.add(y);
-                    newNormalList.add(z);
-                    if (onlyZeroes) {
-                        float magnitudeSq = x * x + y * y + z * z;
-                        onlyZeroes = magnitudeSq <= NORMALS_EPSILON;
-                    }
-                }
-            }
-            if (onlyZeroes) {
+            if (isZero(model.normal)) {
                 logMessage("All normals are effectively zero, ignoring...");
-                normal = false;
+            } else {
+                normalRemap = new int[model.normal.length / 3];
+                model.vn = weld(model.normal, 3, normalRemap);
             }
+            model.normal = null;
         }
 
-        if (uv) {
+        int[] uvRemap = null;
+        if (model.uv != null) {
             logMessage("Processing UVs...");
-            for (int i = 0; i < model.uv.length; i += 2) {
-                float u = model.uv[i];
-                float v = model.uv[i + 1];
-                String t = df.format(u) + " " + df.format(v);
-                if (!uvMap.containsKey(t)) {
-                    uvMap.put(t, newUVList.size() / 2);
-                    newUVList.add(u);
-                    newUVList.add(v);
-                }
-            }
+            uvRemap = new int[model.uv.length / 2];
+            model.vt = weld(model.uv, 2, uvRemap);
+            model.uv = null;
         }
 
         logMessage("Updating model indices...");
@@ -234,66 +329,201 @@ public class DXMConverter {
             int len = index16 ? group.index16.length : group.index32.length;
 
             group.vi = new int[len];
-            if (normal) group.ni = new int[len];
-            if (uv) group.ti = new int[len];
+            if (normalRemap != null) group.ni = new int[len];
+            if (uvRemap != null) group.ti = new int[len];
 
             for (int i = 0; i < len; i++) {
-                int index = index16 ? group.index16[i] : group.index32[i];
+                int index = index16 ? group.index16[i] & 0xFFFF : group.index32[i];
 
-                int vi = index * 3;
-                group.vi[i] = vertexMap.get(df.format(model.vertex[vi]) + " " + df.format(model.vertex[vi + 1]) + " " + df.format(model.vertex[vi + 2]));
+                group.vi[i] = vertexRemap[index];
 
-                if (normal)
-                    group.ni[i] = normalMap.get(df.format(model.normal[vi]) + " " + df.format(model.normal[vi + 1]) + " " + df.format(model.normal[vi + 2]));
+                if (normalRemap != null)
+                    group.ni[i] = normalRemap[index];
 
-                if (uv) {
-                    int ti = index * 2;
-                    group.ti[i] = uvMap.get(df.format(model.uv[ti]) + " " + df.format(model.uv[ti + 1]));
-                }
+                if (uvRemap != null)
+                    group.ti[i] = uvRemap[index];
             }
+
+            group.index16 = null;
+            group.index32 = null;
         }
 
-        logMessage("Updating model data...");
-        model.v = new String[vertexMap.size()];
-        for (HashMap.Entry<String, Integer> entry : vertexMap.entrySet()) {
-            int i = entry.getValue();
-            model.v[i] = entry.getKey();
+        if (positions != null) {
+            logMessage("Generating normals...");
+            generateNormals(model, positions, positionOf, options.creaseAngle);
         }
+    }
 
-        if (normal) {
-            model.vn = new String[normalMap.size()];
-            for (HashMap.Entry<String, Integer> entry : normalMap.entrySet()) {
-                int i = entry.getValue();
-                model.vn[i] = entry.getKey();
-            }
+    //smooth normals weighted by face area and corner angle, only averaging faces within the crease angle of each other
+    //positionOf maps the welded vertices onto the positions when they are not the same (null otherwise)
+    private static void generateNormals(DXMModel model, float[] positions, int[] positionOf, float creaseAngle) {
+        int corners = 0;
+        for (DXMGroup group : model.groups)
+            if (group.vi != null)
+                corners += group.vi.length / 3 * 3;
+
+        //flatten the corners of every group, pointing them at their positions
+        int[] vi = new int[corners];
+        int offset = 0;
+        for (DXMGroup group : model.groups) {
+            if (group.vi == null) continue;
+            int len = group.vi.length / 3 * 3;
+            System.arraycopy(group.vi, 0, vi, offset, len);
+            offset += len;
+        }
+        if (positionOf != null)
+            for (int i = 0; i < corners; i++)
+                vi[i] = positionOf[vi[i]];
+
+        int triangles = corners / 3;
+
+        //area weighted face normals (unnormalized cross products) and the angle at each corner, per triangle
+        float[] faceNormals = new float[triangles * 3];
+        float[] angles = new float[corners];
+        IntStream.range(0, triangles).parallel().forEach(t -> {
+            int a = vi[t * 3] * 3, b = vi[t * 3 + 1] * 3, c = vi[t * 3 + 2] * 3;
+            float abx = positions[b] - positions[a], aby = positions[b + 1] - positions[a + 1], abz = positions[b + 2] - positions[a + 2];
+            float acx = positions[c] - positions[a], acy = positions[c + 1] - positions[a + 1], acz = positions[c + 2] - positions[a + 2];
+            float bcx = positions[c] - positions[b], bcy = positions[c + 1] - positions[b + 1], bcz = positions[c + 2] - positions[b + 2];
+
+            faceNormals[t * 3] = aby * acz - abz * acy;
+            faceNormals[t * 3 + 1] = abz * acx - abx * acz;
+            faceNormals[t * 3 + 2] = abx * acy - aby * acx;
+
+            angles[t * 3] = angle(abx, aby, abz, acx, acy, acz);
+            angles[t * 3 + 1] = angle(-abx, -aby, -abz, bcx, bcy, bcz);
+            angles[t * 3 + 2] = (float) Math.PI - angles[t * 3] - angles[t * 3 + 1];
+        });
+
+        //vertex -> corners adjacency, filled in corner order so every gather below sums in a fixed order
+        int[] start = new int[positions.length / 3 + 1];
+        for (int v : vi)
+            start[v + 1]++;
+        for (int i = 1; i < start.length; i++)
+            start[i] += start[i - 1];
+
+        int[] adjacency = new int[corners];
+        int[] fill = start.clone();
+        for (int i = 0; i < corners; i++)
+            adjacency[fill[vi[i]]++] = i;
+
+        //generated normals go through the same welding as loaded ones
+        int[] normalRemap = new int[corners];
+        if (creaseAngle >= 180f) {
+            //without a crease every corner of a vertex gets the same normal, so each vertex gathers its faces only once
+            float[] vertexNormals = new float[positions.length];
+            IntStream.range(0, positions.length / 3).parallel().forEach(v -> {
+                float x = 0, y = 0, z = 0;
+                for (int j = start[v]; j < start[v + 1]; j++) {
+                    int other = adjacency[j];
+                    int o = other / 3 * 3;
+                    float w = angles[other];
+                    x += faceNormals[o] * w;
+                    y += faceNormals[o + 1] * w;
+                    z += faceNormals[o + 2] * w;
+                }
+                normalize(x, y, z, vertexNormals, v * 3);
+            });
+
+            //so only one normal per position is welded, and the corners follow their position
+            int[] vertexRemap = new int[vertexNormals.length / 3];
+            model.vn = weld(vertexNormals, 3, vertexRemap);
+            for (int c = 0; c < corners; c++)
+                normalRemap[c] = vertexRemap[vi[c]];
+        } else {
+            float[] normals = new float[corners * 3];
+            generateCreasedNormals(vi, faceNormals, angles, start, adjacency, creaseAngle, normals);
+            model.vn = weld(normals, 3, normalRemap);
         }
 
-        if (uv) {
-            model.vt = new String[uvMap.size()];
-            for (HashMap.Entry<String, Integer> entry : uvMap.entrySet()) {
-                int i = entry.getValue();
-                model.vt[i] = entry.getKey();
+        offset = 0;
+        for (DXMGroup group : model.groups) {
+            if (group.vi == null) continue;
+            group.ni = new int[group.vi.length];
+            System.arraycopy(normalRemap, offset, group.ni, 0, group.vi.length / 3 * 3);
+            offset += group.vi.length / 3 * 3;
+        }
+    }
+
+    //each corner gathers the faces around its vertex that are within the crease angle, so no accumulator is shared between threads
+    private static void generateCreasedNormals(int[] vi, float[] faceNormals, float[] angles, int[] start, int[] adjacency, float creaseAngle, float[] normals) {
+        float cosCrease = (float) Math.cos(Math.toRadians(creaseAngle));
+        IntStream.range(0, vi.length / 3).parallel().forEach(t -> {
+            float fx = faceNormals[t * 3], fy = faceNormals[t * 3 + 1], fz = faceNormals[t * 3 + 2];
+            float fl = length(fx, fy, fz);
+
+            for (int k = 0; k < 3; k++) {
+                int corner = t * 3 + k;
+                int v = vi[corner];
+                float x = 0, y = 0, z = 0;
+
+                for (int j = start[v]; j < start[v + 1]; j++) {
+                    int other = adjacency[j];
+                    int o = other / 3 * 3;
+                    float ox = faceNormals[o], oy = faceNormals[o + 1], oz = faceNormals[o + 2];
+
+                    if (other != corner) {
+                        float ol = length(ox, oy, oz);
+                        if (fl == 0 || ol == 0 || (fx * ox + fy * oy + fz * oz) < cosCrease * fl * ol)
+                            continue;
+                    }
+
+                    float w = angles[other];
+                    x += ox * w;
+                    y += oy * w;
+                    z += oz * w;
+                }
+
+                normalize(x, y, z, normals, corner * 3);
             }
+        });
+    }
+
+    private static void normalize(float x, float y, float z, float[] dst, int offset) {
+        float l = length(x, y, z);
+        if (l > 0) {
+            dst[offset] = x / l;
+            dst[offset + 1] = y / l;
+            dst[offset + 2] = z / l;
         }
     }
 
+    private static float angle(float ax, float ay, float az, float bx, float by, float bz) {
+        float l = length(ax, ay, az) * length(bx, by, bz);
+        if (l == 0) return 0;
+        return (float) Math.acos(Math.max(-1f, Math.min(1f, (ax * bx + ay * by + az * bz) / l)));
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    //the mesh takes over the model data, which is released as it gets copied
+    //vertex colors are not carried over, since the mesh has no color stream (only the obj export writes them)
     public static Mesh convertDXMtoOBJ(DXMModel model, String path) {
         Mesh mesh = new Mesh();
 
         boolean normals = model.vn != null;
         boolean uvs = model.vt != null;
 
+        if (model.vc != null) {
+            logMessage("Vertex colors are not shown in the viewer, ignoring...");
+            model.vc = null;
+        }
+
         //mesh values
         for (String s : model.v) {
             String[] v = s.split(" ");
             mesh.getVertices().add(Maths.parseVec3(v[0], v[1], v[2]));
         }
+        model.v = null;
 
         if (normals) {
             for (String s : model.vn) {
                 String[] vn = s.split(" ");
                 mesh.getNormals().add(Maths.parseVec3(vn[0], vn[1], vn[2]));
             }
+            model.vn = null;
         }
 
         if (uvs) {
@@ -301,16 +531,15 @@ public class DXMConverter {
                 String[] vt = s.split(" ");
                 mesh.getUVs().add(Maths.parseVec2(vt[0], vt[1]));
             }
+            model.vt = null;
         }
 
         //groups
-        Path folder = Path.of(path).getParent();
         for (DXMGroup group : model.groups) {
             if (group.texture == null)
                 continue;
 
-            String texture = group.texture.replaceAll("\\\\", "/");
-            texture = texture.substring(texture.lastIndexOf("/") + 1);
+            String texture = textureName(group);
 
             Group g = new Group(texture);
             mesh.getGroups().add(g);
@@ -321,13 +550,8 @@ public class DXMConverter {
             mesh.getMaterials().put(texture, m);
 
             //texture
-            Resource res = null;
-            Path texPath = folder.resolve(texture);
-            if (!Files.exists(texPath))
-                texPath = folder.resolve("Textures").resolve(texture);
-            if (Files.exists(texPath))
-                res = new Resource("", texPath.toString());
-            m.setAlbedo(res == null ? null : new MaterialTexture(res, false, false));
+            Path texPath = resolveTexture(path, texture);
+            m.setAlbedo(texPath == null ? null : new MaterialTexture(new Resource("", texPath.toString()), false, false));
 
             //faces
             if (group.vi != null)
@@ -354,19 +578,59 @@ public class DXMConverter {
                         vn.add(group.ni[i + 2]);
                     }
                 }
+
+            group.vi = group.ni = group.ti = null;
         }
 
         return mesh;
     }
 
+    public static Mesh convertProxyToOBJ(DXMProxy proxy) {
+        Mesh mesh = new Mesh();
+
+        for (int i = 0; i < proxy.vertices.length; i += 3)
+            mesh.getVertices().add(new Vector3f(proxy.vertices[i], proxy.vertices[i + 1], proxy.vertices[i + 2]));
+
+        Group g = new Group("proxy");
+        mesh.getGroups().add(g);
+
+        Material m = new Material("proxy");
+        g.setMaterial(m);
+        mesh.getMaterials().put("proxy", m);
+
+        for (int i = 0; i < proxy.indices.length; i += 3)
+            g.getFaces().add(new Face(new ArrayList<>(List.of(proxy.indices[i], proxy.indices[i + 1], proxy.indices[i + 2])), new ArrayList<>(), new ArrayList<>()));
+
+        return mesh;
+    }
+
 
     // -- helpers -- //
 
 
-    private static void logMessage(String msg) {
+    static void logMessage(String msg) {
         LOGGER.info(msg);
     }
 
+    static String textureName(DXMGroup group) {
+        String texture = group.texture.replaceAll("\\\\", "/");
+        return texture.substring(texture.lastIndexOf("/") + 1);
+    }
+
+    //textures live next to the dlm, or in its Textures folder (null when neither has it)
+    static Path resolveTexture(String path, String texture) {
+        try {
+            Path folder = Path.of(path).toAbsolutePath().getParent();
+            Path texPath = folder.resolve(texture);
+            if (!Files.exists(texPath))
+                texPath = folder.resolve("Textures").resolve(texture);
+            return Files.exists(texPath) ? texPath : null;
+        } catch (InvalidPathException e) {
+            //names the file system cannot represent
+            return null;
+        }
+    }
+
     private static long readUnsignedLong(InputStream in) throws IOException {
         long value = 0;
         for (int i = 0; i < 8; i++)
@@ -385,62 +649,98 @@ public class DXMConverter {
         return (short) ((in.read() & 0xFF) | ((in.read() & 0xFF) << 8));
     }
 
-    private static float[] byteToFloat(byte[] src) {
-        int count = src.length / Float.BYTES;
-        float[] dst = new float[count];
+    private static String[] weld(float[] data, int stride, int[] remap) {
+        return weld(data, stride, null, false, remap, null);
+    }
 
-        for (int i = 0; i < count; i++)
-            dst[i] = Float.intBitsToFloat((src[i * 4] & 0xFF) | ((src[i * 4 + 1] & 0xFF) << 8) | ((src[i * 4 + 2] & 0xFF) << 16) | ((src[i * 4 + 3] & 0xFF) << 24));
+    private static String[] weld(float[] data, int stride, int[] colors, boolean alpha, int[] remap, int[] weldedColors) {
+        DecimalFormat format = df.get();
+        HashMap<String, Integer> map = new HashMap<>();
+        ArrayList<String> keys = new ArrayList<>();
+
+        for (int i = 0, j = 0; i < data.length; i += stride, j++) {
+            StringBuilder sb = new StringBuilder(format.format(data[i]));
+            for (int k = 1; k < stride; k++)
+                sb.append(" ").append(format.format(data[i + k]));
+
+            if (colors != null) {
+                int c = colors[j];
+                sb.append(" ").append(COLOR_CHANNELS[c & 0xFF])
+                        .append(" ").append(COLOR_CHANNELS[(c >> 8) & 0xFF])
+                        .append(" ").append(COLOR_CHANNELS[(c >> 16) & 0xFF]);
+                if (alpha)
+                    sb.append(" ").append(COLOR_CHANNELS[c >>> 24]);
+            }
 
-        return dst;
-    }
+            String key = sb.toString();
+            Integer index = map.putIfAbsent(key, keys.size());
+            if (index == null) {
+                remap[j] = keys.size();
+                if (weldedColors != null)
+                    weldedColors[keys.size()] = colors[j];
+                keys.add(key);
+            } else {
+                remap[j] = index;
+            }
+        }
 
-    private static int[] byteToInt(byte[] src) {
-        int count = src.length / Integer.BYTES;
-        int[] dst = new int[count];
+        return keys.toArray(new String[0]);
+    }
 
-        for (int i = 0; i < count; i++)
-            dst[i] = (src[i * 4] & 0xFF) | ((src[i * 4 + 1] & 0xFF) << 8) | ((src[i * 4 + 2] & 0xFF) << 16) | ((src[i * 4 + 3] & 0xFF) << 24);
+    private static boolean isZero(float[] normals) {
+        for (int i = 0; i < normals.length; i += 3) {
+            float x = normals[i];
+            float y = normals[i + 1];
+            float z = normals[i + 2];
+            if (x * x + y * y + z * z > NORMALS_EPSILON)
+                return false;
+        }
+        return true;
+    }
 
-        return dst;
+    private static ByteBuffer readBlock(InputStream in, byte[] block, int len) throws IOException {
+        if (in.readNBytes(block, 0, len) < len)
+            throw new EOFException("Unexpected end of DXM data");
+        return ByteBuffer.wrap(block, 0, len).order(ByteOrder.LITTLE_ENDIAN);
     }
 
-    private static short[] byteToShort(byte[] src) {
-        int count = src.length / Short.BYTES;
-        short[] dst = new short[count];
+    private static float[] readFloats(InputStream in, int count) throws IOException {
+        float[] dst = new float[count];
+        byte[] block = new byte[READ_BLOCK];
 
-        for (int i = 0; i < count; i++)
-            dst[i] = (short) ((src[i * 2] & 0xFF) | ((src[i * 2 + 1] & 0xFF) << 8));
+        for (int i = 0; i < count; ) {
+            int n = Math.min(count - i, READ_BLOCK / Float.BYTES);
+            readBlock(in, block, n * Float.BYTES).asFloatBuffer().get(dst, i, n);
+            i += n;
+        }
 
         return dst;
     }
 
-    private static String applyFace(int x, int y, int z, int nx, int ny, int nz, int ux, int uy, int uz, boolean normals, boolean uvs) {
-        if (normals && uvs) {
-            return "%d/%d/%d %d/%d/%d %d/%d/%d".formatted(x, ux, nx, y, uy, ny, z, uz, nz);
-        } else if (normals) {
-            return "%d//%d %d//%d %d//%d".formatted(x, nx, y, ny, z, nz);
-        } else if (uvs) {
-            return "%d/%d %d/%d %d/%d".formatted(x, ux, y, uy, z, uz);
-        } else {
-            return "%s %d %d".formatted(x, y, z);
+    private static int[] readInts(InputStream in, int count) throws IOException {
+        int[] dst = new int[count];
+        byte[] block = new byte[READ_BLOCK];
+
+        for (int i = 0; i < count; ) {
+            int n = Math.min(count - i, READ_BLOCK / Integer.BYTES);
+            readBlock(in, block, n * Integer.BYTES).asIntBuffer().get(dst, i, n);
+            i += n;
         }
-    }
 
-    private static String applyFace(DXMGroup group, int index, boolean normals, boolean uvs) {
-        int x = group.vi[index] + 1;
-        int y = group.vi[index + 1] + 1;
-        int z = group.vi[index + 2] + 1;
+        return dst;
+    }
 
-        int nx = normals ? group.ni[index] + 1 : 0;
-        int ny = normals ? group.ni[index + 1] + 1 : 0;
-        int nz = normals ? group.ni[index + 2] + 1 : 0;
+    private static short[] readShorts(InputStream in, int count) throws IOException {
+        short[] dst = new short[count];
+        byte[] block = new byte[READ_BLOCK];
 
-        int ux = uvs ? group.ti[index] + 1 : 0;
-        int uy = uvs ? group.ti[index + 1] + 1 : 0;
-        int uz = uvs ? group.ti[index + 2] + 1 : 0;
+        for (int i = 0; i < count; ) {
+            int n = Math.min(count - i, READ_BLOCK / Short.BYTES);
+            readBlock(in, block, n * Short.BYTES).asShortBuffer().get(dst, i, n);
+            i += n;
+        }
 
-        return applyFace(x, y, z, nx, ny, nz, ux, uy, uz, normals, uvs);
+        return dst;
     }
 
 
@@ -501,12 +801,27 @@ public class DXMConverter {
         public int[] vi, ni, ti;
     }
 
+    public enum DXMColorFormat {
+        Ignore,
+        Obj, //extended "v x y z r g b" lines
+        Binary //little-endian packed RGBA ints in a .colors file, one per vertex
+    }
+
+    public static class DXMOptions {
+        public long memoryBudget; //bytes, 0 for no limit
+        public boolean buildMesh; //whether the model is also converted to a cinnamon mesh, as the viewer does
+        public boolean generateNormals; //when the model has no usable normals
+        public float creaseAngle = 180f; //degrees
+        public DXMColorFormat colors = DXMColorFormat.Obj;
+    }
+
     public static class DXMModel {
         public DXMHeader header;
         public DXMGroup[] groups;
         public float[] vertex, normal, uv;
-        public byte[] color;
+        public int[] color; //packed RGBA, red in the lowest byte
 
         public String[] v, vn, vt;
+        public int[] vc;
     }
 }
@@ -0,0 +1,398 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMColorFormat;
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dxmconverter.DXMConverter.logMessage;
+
+//a separate, headless export path for the command line and the service
+//the viewer keeps exporting its Mesh through cinnamon's ObjExporter, since by then the welded strings
+//this writer encodes have been released, and its flip/rotate pose needs every vertex parsed and transformed anyway
+public class DXMObjWriter {
+
+    //lines (or faces) encoded per chunk
+    private static final int CHUNK_LINES = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    //shared by every export, so buffers and threads are reused between service jobs
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final BufferPool POOL = new BufferPool(CORES * 4);
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(CORES, r -> {
+        Thread thread = new Thread(r, "DXM OBJ encoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void writeOBJ(DXMModel model, Path folder, String name) throws IOException {
+        writeOBJ(model, folder, name, CORES);
+    }
+
+    public static void writeOBJ(DXMModel model, Path folder, String name, int threads) throws IOException {
+        writeOBJ(model, folder, name, threads, DXMColorFormat.Obj);
+    }
+
+    public static void writeOBJ(DXMModel model, Path folder, String name, int threads, DXMColorFormat colors) throws IOException {
+        writeOBJ(model, null, folder, name, threads, colors);
+    }
+
+    //source is the dlm the model was loaded from, its textures are copied next to the obj (null to skip them)
+    public static void writeOBJ(DXMModel model, String source, Path folder, String name, int threads, DXMColorFormat colors) throws IOException {
+        logMessage("## Writing OBJ ##");
+        Files.createDirectories(folder);
+
+        //binary colors are stripped from the vertex lines and written next to the obj instead
+        boolean binaryColors = model.vc != null && colors == DXMColorFormat.Binary;
+
+        List<Chunk> chunks = createChunks(model, name, binaryColors ? 3 : Integer.MAX_VALUE);
+        logMessage("Encoding " + chunks.size() + " chunks on " + Math.max(Math.min(threads, CORES), 1) + " thread(s)...");
+
+        try (FileChannel channel = FileChannel.open(folder.resolve(name + ".obj"), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (threads <= 1) {
+                for (Chunk chunk : chunks)
+                    write(channel, encode(chunk));
+            } else {
+                writeParallel(channel, chunks, Math.min(threads, CORES));
+            }
+        }
+
+        writeMTL(model, source, folder, name);
+
+        if (binaryColors)
+            writeColors(model, folder, name);
+    }
+
+    private static void writeParallel(FileChannel channel, List<Chunk> chunks, int threads) throws IOException {
+        ArrayDeque<Future<ByteBuffer[]>> pending = new ArrayDeque<>();
+        try {
+            //keep one chunk in flight per thread, and write them back in submission order
+            int next = 0;
+
+            while (next < chunks.size() || !pending.isEmpty()) {
+                while (next < chunks.size() && pending.size() < threads) {
+                    Chunk chunk = chunks.get(next++);
+                    pending.add(ENCODERS.submit(() -> encode(chunk)));
+                }
+
+                write(channel, await(pending.poll()));
+            }
+        } finally {
+            //the encoders are shared, so the chunks still in flight are waited on to hand their buffers back
+            for (Future<ByteBuffer[]> future : pending) {
+                try {
+                    for (ByteBuffer buffer : future.get())
+                        POOL.release(buffer);
+                } catch (Exception ignored) {}
+            }
+        }
+    }
+
+    private static ByteBuffer[] await(Future<ByteBuffer[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing OBJ", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode OBJ chunk", e.getCause());
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        try {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers)
+                remaining += buffer.remaining();
+
+            while (remaining > 0)
+                remaining -= channel.write(buffers);
+        } finally {
+            for (ByteBuffer buffer : buffers)
+                POOL.release(buffer);
+        }
+    }
+
+    private static void writeColors(DXMModel model, Path folder, String name) throws IOException {
+        ByteBuffer buffer = POOL.take();
+        try (FileChannel channel = FileChannel.open(folder.resolve(name + ".colors"), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < model.vc.length; ) {
+                int n = Math.min(model.vc.length - i, BUFFER_SIZE / Integer.BYTES);
+                buffer.clear();
+                buffer.asIntBuffer().put(model.vc, i, n);
+                buffer.limit(n * Integer.BYTES);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                i += n;
+            }
+        } finally {
+            POOL.release(buffer.order(ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    //textures are copied next to the obj, so map_Kd can point at them by name
+    private static void writeMTL(DXMModel model, String source, Path folder, String name) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String texture : materials(model)) {
+            sb.append("newmtl ").append(texture).append("\nmap_Kd ").append(texture).append("\n\n");
+
+            if (source == null)
+                continue;
+
+            Path texPath = DXMConverter.resolveTexture(source, texture);
+            Path target = folder.resolve(texture);
+            if (texPath == null)
+                logMessage("Texture " + texture + " not found, skipping...");
+            else if (!Files.exists(target) || !Files.isSameFile(texPath, target))
+                Files.copy(texPath, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.writeString(folder.resolve(name + ".mtl"), sb);
+    }
+
+    private static Set<String> materials(DXMModel model) {
+        Set<String> set = new LinkedHashSet<>();
+        for (DXMGroup group : model.groups)
+            if (group.texture != null)
+                set.add(DXMConverter.textureName(group));
+        return set;
+    }
+
+
+    // -- chunks -- //
+
+
+    private static List<Chunk> createChunks(DXMModel model, String name, int vertexFields) {
+        ChunkList chunks = new ChunkList();
+
+        boolean normals = model.vn != null;
+        boolean uvs = model.vt != null;
+
+        //names go through utf-8, the same as the mtl they refer to
+        chunks.header(enc -> enc.put("mtllib ").putUtf8(name).put(".mtl\n"));
+
+        addLines(chunks, "v ", model.v, vertexFields);
+        if (uvs) addLines(chunks, "vt ", model.vt, Integer.MAX_VALUE);
+        if (normals) addLines(chunks, "vn ", model.vn, Integer.MAX_VALUE);
+
+        for (DXMGroup group : model.groups) {
+            if (group.texture == null)
+                continue;
+
+            String texture = DXMConverter.textureName(group);
+            chunks.header(enc -> enc.put("\ng ").putUtf8(texture).put("\nusemtl ").putUtf8(texture).put("\n"));
+
+            if (group.vi == null)
+                continue;
+
+            int faces = group.vi.length / 3;
+            for (int start = 0; start < faces; start += CHUNK_LINES) {
+                int from = start, to = Math.min(start + CHUNK_LINES, faces);
+                chunks.add(enc -> {
+                    for (int i = from * 3; i < to * 3; i += 3)
+                        encodeFace(enc, group, i, normals, uvs);
+                });
+            }
+        }
+
+        return chunks.finish();
+    }
+
+    private static void addLines(ChunkList chunks, String prefix, String[] lines, int fields) {
+        for (int start = 0; start < lines.length; start += CHUNK_LINES) {
+            int from = start, to = Math.min(start + CHUNK_LINES, lines.length);
+            chunks.add(enc -> {
+                for (int i = from; i < to; i++)
+                    enc.put(prefix).put(lines[i], fields).put('\n');
+            });
+        }
+    }
+
+    private static void encodeFace(Encoder enc, DXMGroup group, int index, boolean normals, boolean uvs) {
+        enc.put('f');
+        for (int i = index; i < index + 3; i++) {
+            enc.put(' ').put(group.vi[i] + 1);
+            if (uvs || normals) {
+                enc.put('/');
+                if (uvs) enc.put(group.ti[i] + 1);
+                if (normals) enc.put('/').put(group.ni[i] + 1);
+            }
+        }
+        enc.put('\n');
+    }
+
+    private static ByteBuffer[] encode(Chunk chunk) {
+        Encoder enc = new Encoder(POOL);
+        try {
+            chunk.encode(enc);
+        } catch (RuntimeException e) {
+            enc.release();
+            throw e;
+        }
+        return enc.finish();
+    }
+
+
+    // -- encoding -- //
+
+
+    private interface Chunk {
+        void encode(Encoder enc);
+    }
+
+    //small headers are not worth a buffer of their own, so they are encoded as part of the chunk that follows them
+    private static class ChunkList {
+        private final List<Chunk> chunks = new ArrayList<>();
+        private Chunk header;
+
+        private void header(Chunk chunk) {
+            Chunk previous = header;
+            header = previous == null ? chunk : enc -> {
+                previous.encode(enc);
+                chunk.encode(enc);
+            };
+        }
+
+        private void add(Chunk chunk) {
+            Chunk h = header;
+            header = null;
+            chunks.add(h == null ? chunk : enc -> {
+                h.encode(enc);
+                chunk.encode(enc);
+            });
+        }
+
+        private List<Chunk> finish() {
+            if (header != null)
+                chunks.add(header);
+            header = null;
+            return chunks;
+        }
+    }
+
+    private static class Encoder {
+        private final BufferPool pool;
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private final byte[] digits = new byte[11];
+        private ByteBuffer current;
+
+        private Encoder(BufferPool pool) {
+            this.pool = pool;
+            this.current = pool.take();
+        }
+
+        private Encoder put(byte b) {
+            if (!current.hasRemaining()) {
+                buffers.add(current.flip());
+                current = pool.take();
+            }
+            current.put(b);
+            return this;
+        }
+
+        //ascii only, every char is one byte
+        private Encoder put(char c) {
+            return put((byte) c);
+        }
+
+        private Encoder put(String s) {
+            for (int i = 0; i < s.length(); i++)
+                put(s.charAt(i));
+            return this;
+        }
+
+        private Encoder putUtf8(String s) {
+            for (byte b : s.getBytes(StandardCharsets.UTF_8))
+                put(b);
+            return this;
+        }
+
+        //only the first space separated fields of the string
+        private Encoder put(String s, int fields) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == ' ' && --fields == 0)
+                    break;
+                put(c);
+            }
+            return this;
+        }
+
+        private Encoder put(int value) {
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+
+            int len = 0;
+            do {
+                digits[len++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+
+            while (len > 0)
+                put((char) digits[--len]);
+            return this;
+        }
+
+        private void release() {
+            for (ByteBuffer buffer : buffers)
+                pool.release(buffer);
+            pool.release(current);
+            buffers.clear();
+            current = null;
+        }
+
+        private ByteBuffer[] finish() {
+            buffers.add(current.flip());
+            current = null;
+            return buffers.toArray(new ByteBuffer[0]);
+        }
+    }
+
+    //keeps at most max buffers around, anything past that is left to the GC
+    private static class BufferPool {
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int max;
+
+        private BufferPool(int max) {
+            this.max = max;
+        }
+
+        private ByteBuffer take() {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null)
+                return ByteBuffer.allocateDirect(BUFFER_SIZE);
+            size.decrementAndGet();
+            return buffer.clear();
+        }
+
+        private void release(ByteBuffer buffer) {
+            if (size.incrementAndGet() <= max)
+                free.add(buffer);
+            else
+                size.decrementAndGet();
+        }
+    }
+}
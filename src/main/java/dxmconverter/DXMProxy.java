@@ -0,0 +1,143 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+
+import java.util.HashMap;
+
+public class DXMProxy {
+
+    public static final int MAX_TRIANGLES = 1 << 16;
+    public static final int GRID_SIZE = 64;
+
+    public final float[] vertices;
+    public final int[] indices;
+
+    private DXMProxy(float[] vertices, int[] indices) {
+        this.vertices = vertices;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    public static DXMProxy build(DXMModel model) {
+        return build(model, MAX_TRIANGLES, GRID_SIZE);
+    }
+
+    //builds a coarse mesh from a strided sample of at most maxTriangles triangles of the raw (not yet optimized) model,
+    //snapping their corners to a grid of gridSize^3 cells, so the cost does not depend on the model size
+    public static DXMProxy build(DXMModel model, int maxTriangles, int gridSize) {
+        long total = 0;
+        for (DXMGroup group : model.groups)
+            total += indexCount(group) / 3;
+
+        if (total == 0 || model.vertex == null)
+            return new DXMProxy(new float[0], new int[0]);
+
+        long stride = Math.max((total + maxTriangles - 1) / maxTriangles, 1);
+
+        //bounds of the sampled corners
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        Sampler sampler = new Sampler(model, stride);
+        for (int corner; (corner = sampler.next()) >= 0; ) {
+            for (int k = 0; k < 3; k++) {
+                float f = model.vertex[corner * 3 + k];
+                min[k] = Math.min(min[k], f);
+                max[k] = Math.max(max[k], f);
+            }
+        }
+
+        float[] scale = new float[3];
+        for (int k = 0; k < 3; k++)
+            scale[k] = max[k] > min[k] ? gridSize / (max[k] - min[k]) : 0;
+
+        //cluster the sampled corners, averaging the positions inside each cell
+        HashMap<Integer, Integer> clusters = new HashMap<>();
+        int maxCorners = (int) Math.min(total, maxTriangles) * 3;
+        float[] sums = new float[maxCorners * 3];
+        int[] counts = new int[maxCorners];
+        int[] indices = new int[maxCorners];
+        int indexCount = 0;
+
+        int[] tri = new int[3];
+        sampler = new Sampler(model, stride);
+        for (int corner, c = 0; (corner = sampler.next()) >= 0; ) {
+            int cell = 0;
+            for (int k = 0; k < 3; k++) {
+                int i = (int) ((model.vertex[corner * 3 + k] - min[k]) * scale[k]);
+                cell = cell * gridSize + Math.min(Math.max(i, 0), gridSize - 1);
+            }
+
+            Integer cluster = clusters.putIfAbsent(cell, clusters.size());
+            int id = cluster == null ? clusters.size() - 1 : cluster;
+
+            for (int k = 0; k < 3; k++)
+                sums[id * 3 + k] += model.vertex[corner * 3 + k];
+            counts[id]++;
+
+            tri[c++] = id;
+            if (c == 3) {
+                c = 0;
+                //triangles collapsed by the clustering are dropped
+                if (tri[0] != tri[1] && tri[1] != tri[2] && tri[0] != tri[2]) {
+                    indices[indexCount++] = tri[0];
+                    indices[indexCount++] = tri[1];
+                    indices[indexCount++] = tri[2];
+                }
+            }
+        }
+
+        float[] vertices = new float[clusters.size() * 3];
+        for (int i = 0; i < clusters.size(); i++)
+            for (int k = 0; k < 3; k++)
+                vertices[i * 3 + k] = sums[i * 3 + k] / counts[i];
+
+        int[] result = new int[indexCount];
+        System.arraycopy(indices, 0, result, 0, indexCount);
+        return new DXMProxy(vertices, result);
+    }
+
+    private static int indexCount(DXMGroup group) {
+        return group.index16 != null ? group.index16.length : group.index32 != null ? group.index32.length : 0;
+    }
+
+    //walks the corners of every stride-th triangle across all groups
+    private static class Sampler {
+        private final DXMModel model;
+        private final long stride;
+        private int group, triangle, corner;
+
+        private Sampler(DXMModel model, long stride) {
+            this.model = model;
+            this.stride = stride;
+        }
+
+        private int next() {
+            while (group < model.groups.length) {
+                DXMGroup g = model.groups[group];
+                int triangles = indexCount(g) / 3;
+
+                if (triangle < triangles) {
+                    int i = triangle * 3 + corner;
+                    if (++corner == 3) {
+                        corner = 0;
+                        triangle = (int) Math.min(triangle + stride, Integer.MAX_VALUE);
+                    }
+                    return g.index16 != null ? g.index16[i] & 0xFFFF : g.index32[i];
+                }
+
+                //carry the stride over into the next group
+                triangle -= triangles;
+                group++;
+            }
+            return -1;
+        }
+    }
+}
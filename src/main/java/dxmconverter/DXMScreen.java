@@ -12,6 +12,12 @@ import cinnamon.utils.Resource;
 
 public class DXMScreen extends Screen {
 
+    private final DXMConverter.DXMOptions options;
+
+    public DXMScreen(DXMConverter.DXMOptions options) {
+        this.options = options;
+    }
+
     @Override
     public void render(MatrixStack matrices, int mouseX, int mouseY, float delta) {
         super.render(matrices, mouseX, mouseY, delta);
@@ -24,7 +30,7 @@ public class DXMScreen extends Screen {
     public boolean filesDropped(String[] files) {
         for (String file : files) {
             if (file.matches("^.+(\\.dlm|\\.obj)$")) {
-                client.setScreen(new DXMViewerScreen(this, file));
+                client.setScreen(new DXMViewerScreen(this, file, options));
                 return true;
             }
         }
@@ -0,0 +1,405 @@
+package dxmconverter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static dxmconverter.DXMConverter.logMessage;
+
+public class DXMService {
+
+    public static final int DEFAULT_PORT = 8642;
+    private static final int QUEUE_SIZE = 16;
+    private static final long MAX_UPLOAD_SIZE = 4L << 30;
+
+    //finished jobs are dropped after a while, or once too many of them pile up
+    private static final long JOB_TTL = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_FINISHED_JOBS = 256;
+
+    private final DXMConverter.DXMOptions options;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor workers;
+    private final Semaphore slots;
+    private final int writerThreads;
+    private final HttpServer server;
+    private final ScheduledExecutorService cleaner;
+
+    //projected peak memory of the running jobs, admitted against the memory budget as a whole
+    private final Object budgetLock = new Object();
+    private long reservedMemory;
+
+    public DXMService(int port, DXMConverter.DXMOptions options) throws IOException {
+        this.options = options;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workerCount = Math.max(cores / 2, 1);
+        this.writerThreads = Math.max(cores / workerCount, 1);
+
+        //bounded queue, a job takes one of its slots before its upload is read and keeps it until it finishes
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE));
+        this.slots = new Semaphore(workerCount + QUEUE_SIZE);
+
+        //enough request threads for every slot to upload at once, plus a few for polling and downloads
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/jobs", this::handle);
+        this.server.setExecutor(Executors.newFixedThreadPool(workerCount + QUEUE_SIZE + 4));
+
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DXM service cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        server.start();
+        cleaner.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.MINUTES);
+        logMessage("DXM service listening on " + server.getAddress() + " with " + workers.getCorePoolSize() + " worker(s)");
+    }
+
+    public void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        workers.shutdownNow();
+        cleaner.shutdownNow();
+        for (Job job : jobs.values())
+            job.delete();
+        jobs.clear();
+    }
+
+
+    // -- requests -- //
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/jobs/?|/$", "").split("/");
+            String method = exchange.getRequestMethod();
+
+            if (path[0].isEmpty()) {
+                if (method.equals("POST")) submit(exchange);
+                else send(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            Job job = jobs.get(path[0]);
+            if (job == null) {
+                send(exchange, 404, "Unknown job");
+                return;
+            }
+
+            if (path.length == 1 && method.equals("GET")) {
+                sendJson(exchange, 200, job.toJson());
+            } else if (path.length == 1 && method.equals("DELETE")) {
+                jobs.remove(job.id);
+                job.cancel();
+
+                //a job still waiting in the queue gives its slot back right away, since it will never run
+                if (workers.remove(job.task)) {
+                    job.finish(Status.FAILED);
+                    slots.release();
+                }
+                sendJson(exchange, 200, job.toJson());
+            } else if (path.length == 2 && method.equals("GET") && (path[1].equals("obj") || path[1].equals("mtl") || path[1].equals("colors"))) {
+                sendOutput(exchange, job, path[1]);
+            } else {
+                send(exchange, 404, "Not found");
+            }
+        } catch (Exception e) {
+            logMessage("DXM service request failed: " + e);
+            if (exchange.getResponseCode() == -1) {
+                try {
+                    send(exchange, 500, "Internal error: " + e.getMessage());
+                } catch (IOException ignored) {}
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        //reserve a slot before reading any upload
+        if (!slots.tryAcquire()) {
+            send(exchange, 429, "Queue is full");
+            return;
+        }
+
+        Job job = null;
+        boolean queued = false;
+        try {
+            String query = exchange.getRequestURI().getRawQuery();
+            String source = query != null && query.startsWith("path=") ? URLDecoder.decode(query.substring(5), StandardCharsets.UTF_8) : null;
+
+            if (source == null) {
+                String length = exchange.getRequestHeaders().getFirst("Content-Length");
+                if (length != null && Long.parseLong(length) > MAX_UPLOAD_SIZE) {
+                    send(exchange, 413, "Upload is larger than " + (MAX_UPLOAD_SIZE >> 20) + " MB");
+                    return;
+                }
+            }
+
+            job = new Job(Files.createTempDirectory("dxm-job-"));
+            if (source == null) {
+                Path upload = job.folder.resolve("upload.dlm");
+                long size;
+                try (InputStream in = exchange.getRequestBody()) {
+                    size = copy(in, upload, MAX_UPLOAD_SIZE);
+                }
+                if (size < 0) {
+                    send(exchange, 413, "Upload is larger than " + (MAX_UPLOAD_SIZE >> 20) + " MB");
+                    return;
+                }
+                if (size == 0) {
+                    send(exchange, 400, "Expected a DLM path or upload");
+                    return;
+                }
+                job.source = upload.toString();
+                job.name = "upload";
+            } else {
+                String name = source.replaceAll("\\\\", "/");
+                job.source = source;
+                job.name = name.substring(name.lastIndexOf('/') + 1).replaceAll("\\.[^.]*$", "");
+            }
+
+            Job submitted = job;
+            job.task = () -> run(submitted);
+            jobs.put(job.id, job);
+            try {
+                workers.execute(job.task);
+                queued = true;
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.id);
+                send(exchange, 503, "Service is shutting down");
+                return;
+            }
+
+            sendJson(exchange, 202, job.toJson());
+        } finally {
+            //once queued the slot belongs to the job, every other way out hands it back here
+            if (!queued) {
+                slots.release();
+                if (job != null)
+                    job.delete();
+            }
+        }
+    }
+
+    //copies at most max bytes, returning -1 when the stream has more than that
+    private static long copy(InputStream in, Path file, long max) throws IOException {
+        long size = 0;
+        byte[] buffer = new byte[1 << 16];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                size += n;
+                if (size > max)
+                    return -1;
+                out.write(buffer, 0, n);
+            }
+        }
+        return size;
+    }
+
+    private void run(Job job) {
+        long reserved = 0;
+        try {
+            if (job.cancelled) return;
+            if (options.memoryBudget > 0) {
+                long peak = DXMConverter.estimatePeakMemory(job.source, options);
+                reserve(job, peak);
+                reserved = peak;
+            }
+
+            if (!job.start()) return;
+            DXMConverter.DXMModel model = DXMConverter.loadDXM(job.source, options);
+            if (job.cancelled) return;
+            DXMConverter.optimizeDXMModel(model, options);
+            if (job.cancelled) return;
+            DXMObjWriter.writeOBJ(model, job.source, job.folder, job.name, writerThreads, options.colors);
+            job.finish(Status.DONE);
+        } catch (Throwable t) {
+            job.error = String.valueOf(t.getMessage());
+            job.finish(Status.FAILED);
+            if (!job.cancelled)
+                logMessage("DXM service job " + job.id + " failed: " + t);
+        } finally {
+            //cancelled jobs are only cleaned up here, once nothing writes to their folder anymore
+            if (job.cancelled)
+                job.finish(Status.FAILED);
+            release(reserved);
+            slots.release();
+            prune();
+        }
+    }
+
+    //waits until the job fits in the memory budget next to the jobs already running
+    private void reserve(Job job, long peak) throws InterruptedException {
+        if (peak > options.memoryBudget)
+            throw new RuntimeException("Projected peak memory of %d MB exceeds the budget of %d MB".formatted(peak >> 20, options.memoryBudget >> 20));
+
+        synchronized (budgetLock) {
+            while (reservedMemory + peak > options.memoryBudget) {
+                if (job.cancelled)
+                    throw new RuntimeException("Cancelled");
+                budgetLock.wait(1000);
+            }
+            reservedMemory += peak;
+        }
+    }
+
+    private void release(long peak) {
+        if (peak == 0)
+            return;
+
+        synchronized (budgetLock) {
+            reservedMemory -= peak;
+            budgetLock.notifyAll();
+        }
+    }
+
+    private void prune() {
+        long now = System.currentTimeMillis();
+        List<Job> finished = jobs.values().stream()
+                .filter(job -> job.finishedAt > 0)
+                .sorted(Comparator.comparingLong(job -> job.finishedAt))
+                .toList();
+
+        int excess = finished.size() - MAX_FINISHED_JOBS;
+        for (Job job : finished) {
+            if (excess-- > 0 || now - job.finishedAt > JOB_TTL) {
+                jobs.remove(job.id);
+                job.delete();
+            }
+        }
+    }
+
+    private static void sendOutput(HttpExchange exchange, Job job, String type) throws IOException {
+        if (job.status != Status.DONE) {
+            sendJson(exchange, 409, job.toJson());
+            return;
+        }
+
+        //the colors sidecar only exists for colored models exported with binary colors
+        Path file = job.folder.resolve(job.name + "." + type);
+        if (!Files.exists(file)) {
+            send(exchange, 404, "No " + type + " output");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", type.equals("colors") ? "application/octet-stream" : "text/plain; charset=us-ascii");
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file, out);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int code, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        write(exchange, code, json);
+    }
+
+    private static void send(HttpExchange exchange, int code, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        write(exchange, code, message + "\n");
+    }
+
+    private static void write(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    // -- structure -- //
+
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private static class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final Path folder;
+        private String source, name;
+        private Runnable task;
+        private volatile Status status = Status.QUEUED;
+        private volatile String error;
+        private volatile boolean cancelled;
+        private volatile long finishedAt;
+
+        private Job(Path folder) {
+            this.folder = folder;
+        }
+
+        //finished jobs lose their files right away, unfinished ones once their worker lets go of them
+        private synchronized void cancel() {
+            cancelled = true;
+            if (finishedAt > 0) {
+                delete();
+            } else {
+                status = Status.CANCELLED;
+            }
+        }
+
+        private synchronized boolean start() {
+            if (cancelled)
+                return false;
+            status = Status.RUNNING;
+            return true;
+        }
+
+        private synchronized void finish(Status result) {
+            if (finishedAt > 0)
+                return;
+
+            finishedAt = System.currentTimeMillis();
+            if (cancelled) {
+                status = Status.CANCELLED;
+                delete();
+            } else {
+                status = result;
+            }
+        }
+
+        private String toJson() {
+            String json = "{\"id\":\"" + id + "\",\"status\":\"" + status + "\"";
+            if (error != null)
+                json += ",\"error\":\"" + error.replace("\\", "\\\\").replace("\"", "\\\"").replaceAll("[\\r\\n]", " ") + "\"";
+            return json + "}";
+        }
+
+        private void delete() {
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -19,7 +19,10 @@ import cinnamon.text.Text;
 import cinnamon.utils.*;
 import org.joml.Matrix4f;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import static cinnamon.Client.LOGGER;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
@@ -35,9 +38,19 @@ public class DXMViewerScreen extends ParentedScreen {
 
     private static final Path EXPORT_FOLDER = Path.of("./");
 
+    //models with at least this many vertices show a proxy mesh while converting
+    private static final long PROGRESSIVE_VERTICES = 1_000_000;
+
     private final ModelViewer modelViewer = new ModelViewer(0, 0, 1, 1);
-    private final Mesh model;
     private final String name;
+    private Mesh model;
+
+    //filled in by the background loading of dxm models
+    private CompletableFuture<Void> loading;
+    private volatile boolean closed;
+    private volatile Mesh pendingProxy, pendingModel;
+    private volatile Throwable pendingError;
+    private volatile boolean hasColors;
 
     private final Slider
             rotX = new Slider(0, 0, 1),
@@ -54,39 +67,77 @@ public class DXMViewerScreen extends ParentedScreen {
     private float listX;
     private boolean showList;
 
-    public DXMViewerScreen(Screen parentScreen, String modelFile) {
+    public DXMViewerScreen(Screen parentScreen, String modelFile, DXMConverter.DXMOptions options) {
         super(parentScreen);
 
         modelFile = modelFile.replaceAll("\\\\", "/");
         this.name = modelFile.substring(modelFile.lastIndexOf('/') + 1, modelFile.lastIndexOf('.'));
 
-        Mesh model;
-        try {
-            if (modelFile.endsWith(".obj"))
+        modelViewer.setDefaultRot(0, 0);
+
+        if (modelFile.endsWith(".obj")) {
+            try {
                 model = ObjLoader.load(new Resource("", modelFile));
-            else {
-                DXMConverter.DXMModel dxm = DXMConverter.loadDXM(modelFile);
-                DXMConverter.optimizeDXMModel(dxm);
-                model = DXMConverter.convertDXMtoOBJ(dxm, modelFile);
+                modelViewer.setModel(new ObjRenderer(model));
+            } catch (Exception e) {
+                loadFailed(e);
             }
-        } catch (Exception e) {
-            model = null;
-            LOGGER.error("Failed to load model", e);
-            Toast.addToast(Text.of("Failed to load model\n" + e.getMessage())).type(Toast.ToastType.ERROR);
-            close();
+        } else {
+            //dxm models load off the render thread, the meshes are picked up in render()
+            String file = modelFile;
+            loading = CompletableFuture.runAsync(() -> loadDXM(file, options));
+            loading.exceptionally(e -> {
+                if (!closed) pendingError = e.getCause() != null ? e.getCause() : e;
+                return null;
+            });
         }
 
-        this.model = model;
-
-        modelViewer.setDefaultRot(0, 0);
-        if (model != null)
-            modelViewer.setModel(new ObjRenderer(model));
-
         rotX.setMin(-180); rotX.setMax(180);
         rotY.setMin(-180); rotY.setMax(180);
         rotZ.setMin(-180); rotZ.setMax(180);
     }
 
+    //every stage checks whether the screen was closed meanwhile, so an abandoned model is dropped as early as possible
+    private void loadDXM(String modelFile, DXMConverter.DXMOptions options) {
+        DXMConverter.DXMModel dxm;
+        try {
+            dxm = DXMConverter.loadDXM(modelFile, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (closed) return;
+
+        //the proxy reads the raw data, so it must be built before the optimization releases it
+        if (dxm.header.vertexCount >= PROGRESSIVE_VERTICES) {
+            DXMProxy proxy = DXMProxy.build(dxm);
+            LOGGER.info("Showing proxy with " + proxy.getTriangleCount() + " triangles while converting...");
+            pendingProxy = DXMConverter.convertProxyToOBJ(proxy);
+            if (closed) return;
+        }
+
+        //the viewer mesh has no vertex colors, so they are ignored while optimizing
+        hasColors = dxm.color != null;
+        DXMConverter.optimizeDXMModel(dxm, options);
+        if (closed) return;
+
+        pendingModel = DXMConverter.convertDXMtoOBJ(dxm, modelFile);
+    }
+
+    private void loadFailed(Throwable e) {
+        LOGGER.error("Failed to load model", e);
+        Toast.addToast(Text.of("Failed to load model\n" + e.getMessage())).type(Toast.ToastType.ERROR);
+        close();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (loading != null)
+            loading.cancel(false);
+        pendingProxy = pendingModel = null;
+        super.close();
+    }
+
     @Override
     public void init() {
         super.init();
@@ -140,6 +191,11 @@ public class DXMViewerScreen extends ParentedScreen {
 
         //buttons
         list.addWidget(new Button(0, 0, w - 8, 16, Text.of("Export OBJ"), b -> {
+            if (model == null) {
+                Toast.addToast(Text.of("Model is still loading"));
+                return;
+            }
+
             try {
                 Matrix4f pose = new Matrix4f();
                 pose.scale(flipX.isToggled() ? -1 : 1, flipY.isToggled() ? -1 : 1, flipZ.isToggled() ? -1 : 1);
@@ -149,6 +205,8 @@ public class DXMViewerScreen extends ParentedScreen {
 
                 ObjExporter.export(name, model, pose, EXPORT_FOLDER);
                 Toast.addToast(Text.of("Model exported")).type(Toast.ToastType.SUCCESS);
+                if (hasColors)
+                    Toast.addToast(Text.of("Vertex colors were not exported, convert from the command line to keep them"));
             } catch (Exception e) {
                 LOGGER.error("Failed to export model", e);
                 Toast.addToast(Text.of("Failed to export model")).type(Toast.ToastType.ERROR);
@@ -187,6 +245,26 @@ public class DXMViewerScreen extends ParentedScreen {
 
     @Override
     public void render(MatrixStack matrices, int mouseX, int mouseY, float delta) {
+        //swap in the loaded meshes on the render thread
+        if (pendingProxy != null) {
+            if (model == null)
+                modelViewer.setModel(new ObjRenderer(pendingProxy));
+            pendingProxy = null;
+        }
+        if (pendingModel != null) {
+            model = pendingModel;
+            pendingModel = null;
+            modelViewer.setModel(new ObjRenderer(model));
+            if (hasColors)
+                Toast.addToast(Text.of("Vertex colors are not shown in the viewer"));
+        }
+        if (pendingError != null) {
+            Throwable e = pendingError;
+            pendingError = null;
+            loadFailed(e);
+            return;
+        }
+
         float d = UIHelper.tickDelta(0.6f);
         listX = Maths.lerp(listX, showList ? list.getWidth() : -10, d);
         list.setX(width - (int) listX + list.getWidth() / 2);
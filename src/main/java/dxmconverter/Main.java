@@ -4,12 +4,69 @@ import cinnamon.Cinnamon;
 import cinnamon.Client;
 import cinnamon.utils.Resource;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        DXMConverter.DXMOptions options = new DXMConverter.DXMOptions();
+        List<String> files = new ArrayList<>();
+        int servePort = -1;
+
+        for (String arg : args) {
+            if (arg.startsWith("--memory-budget="))
+                options.memoryBudget = Long.parseLong(arg.substring(arg.indexOf('=') + 1)) << 20;
+            else if (arg.equals("--normals"))
+                options.generateNormals = true;
+            else if (arg.startsWith("--normals=")) {
+                options.generateNormals = true;
+                options.creaseAngle = Float.parseFloat(arg.substring(arg.indexOf('=') + 1));
+            } else if (arg.startsWith("--colors=")) {
+                String format = arg.substring(arg.indexOf('=') + 1);
+                options.colors = null;
+                for (DXMConverter.DXMColorFormat value : DXMConverter.DXMColorFormat.values())
+                    if (value.name().equalsIgnoreCase(format))
+                        options.colors = value;
+                if (options.colors == null)
+                    throw new IllegalArgumentException("Unknown color format: " + format + " (expected obj, binary or ignore)");
+            } else if (arg.equals("--serve"))
+                servePort = DXMService.DEFAULT_PORT;
+            else if (arg.startsWith("--serve="))
+                servePort = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            else
+                files.add(arg);
+        }
+
+        //long-running local service, kept alive by the server threads
+        if (servePort >= 0) {
+            new DXMService(servePort, options).start();
+            return;
+        }
+
+        //files dropped onto the executable are converted without opening the window
+        if (!files.isEmpty()) {
+            for (String file : files)
+                convert(file, options);
+            return;
+        }
+
         Cinnamon.TITLE = "DXM Converter";
         Cinnamon.ICON = new Resource("dxmconverter", "icon/32.png");
-        Client.getInstance().mainScreen = DXMScreen::new;
+        //the viewer mesh has no color stream, so welding by color would only add vertices
+        options.buildMesh = true;
+        options.colors = DXMConverter.DXMColorFormat.Ignore;
+        Client.getInstance().mainScreen = () -> new DXMScreen(options);
         new Cinnamon().run();
     }
+
+    private static void convert(String file, DXMConverter.DXMOptions options) throws Exception {
+        String path = file.replaceAll("\\\\", "/");
+        String name = path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+
+        DXMConverter.DXMModel model = DXMConverter.loadDXM(file, options);
+        DXMConverter.optimizeDXMModel(model, options);
+        DXMObjWriter.writeOBJ(model, file, Path.of("./", name), name, Runtime.getRuntime().availableProcessors(), options.colors);
+    }
 }
@@ -0,0 +1,54 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMColorFormat;
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+import dxmconverter.DXMConverter.DXMOptions;
+
+import java.util.Random;
+
+//not a unit test, run manually: compares welding colored models against the position only path
+public class DXMConverterBenchmark {
+
+    public static void main(String[] args) {
+        int vertices = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int runs = 5;
+
+        Random random = new Random(1);
+        float[] vertex = new float[vertices * 3];
+        int[] color = new int[vertices];
+        for (int i = 0; i < vertices; i++) {
+            vertex[i * 3] = random.nextFloat() * 100;
+            vertex[i * 3 + 1] = random.nextFloat() * 100;
+            vertex[i * 3 + 2] = random.nextFloat() * 100;
+            color[i] = random.nextInt();
+        }
+
+        int[] indices = new int[vertices * 3];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = random.nextInt(vertices);
+
+        //a colored model optimized with Ignore is the position only path
+        for (DXMColorFormat format : DXMColorFormat.values()) {
+            DXMOptions options = new DXMOptions();
+            options.colors = format;
+
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                DXMModel model = new DXMModel();
+                model.vertex = vertex.clone();
+                model.color = color.clone();
+                DXMGroup group = new DXMGroup();
+                group.index32 = indices.clone();
+                group.length = indices.length;
+                model.groups = new DXMGroup[]{group};
+
+                long start = System.nanoTime();
+                DXMConverter.optimizeDXMModel(model, options);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.printf("%-7s %8.1f ms, %8.1f M vertices/s%n", format, best / 1e6, vertices / (best / 1e3));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMColorFormat;
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+import dxmconverter.DXMConverter.DXMOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DXMConverterTest {
+
+    //unit cube, counter clockwise seen from outside
+    private static final float[] CUBE = {0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0, 0, 0, 1, 1, 0, 1, 1, 1, 1, 0, 1, 1};
+    private static final int[] CUBE_INDICES = {0, 2, 1, 0, 3, 2, 4, 5, 6, 4, 6, 7, 0, 1, 5, 0, 5, 4, 3, 7, 6, 3, 6, 2, 0, 4, 7, 0, 7, 3, 1, 2, 6, 1, 6, 5};
+
+    //the vn lines only keep 6 decimals
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void smoothNormalsAreWeightedByAreaAndAngle() {
+        //a cube with one corner pulled out, so faces differ in both area and corner angles
+        float[] vertex = CUBE.clone();
+        vertex[18] = 1.7f;
+        vertex[19] = 1.4f;
+        vertex[20] = 1.2f;
+
+        DXMModel model = model(vertex, CUBE_INDICES, null);
+        DXMConverter.optimizeDXMModel(model, normals(180));
+
+        for (int c = 0; c < CUBE_INDICES.length; c++) {
+            float[] expected = new float[3];
+            for (int t = 0; t < CUBE_INDICES.length; t += 3)
+                for (int k = 0; k < 3; k++)
+                    if (CUBE_INDICES[t + k] == CUBE_INDICES[c])
+                        addWeighted(vertex, CUBE_INDICES, t, k, expected);
+
+            assertNormal(normalize(expected), normal(model, c), "corner " + c);
+        }
+    }
+
+    @Test
+    public void hardEdgesStaySplit() {
+        DXMModel model = model(CUBE.clone(), CUBE_INDICES, null);
+        DXMConverter.optimizeDXMModel(model, normals(60));
+
+        //every corner keeps the normal of its own face
+        assertEquals(6, model.vn.length);
+        for (int c = 0; c < CUBE_INDICES.length; c++) {
+            int t = c / 3 * 3;
+            float[] face = new float[3];
+            for (int k = 0; k < 3; k++)
+                addWeighted(CUBE, CUBE_INDICES, t, k, face);
+            assertNormal(normalize(face), normal(model, c), "corner " + c);
+        }
+    }
+
+    @Test
+    public void missingAndZeroNormalsAreGenerated() {
+        DXMModel zero = model(CUBE.clone(), CUBE_INDICES, new float[CUBE.length]);
+        DXMConverter.optimizeDXMModel(zero, normals(180));
+
+        //position and color models have no normal stream at all
+        DXMModel colored = model(CUBE.clone(), CUBE_INDICES, null);
+        colored.color = new int[CUBE.length / 3];
+        Arrays.fill(colored.color, 0xFF336699);
+        DXMConverter.optimizeDXMModel(colored, normals(180));
+
+        for (DXMModel model : new DXMModel[]{zero, colored}) {
+            assertNotNull(model.vn);
+            assertEquals(8, model.vn.length);
+            for (int c = 0; c < CUBE_INDICES.length; c++) {
+                float[] n = normal(model, c);
+                assertEquals(1f / (float) Math.sqrt(3), Math.abs(n[0]), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void normalsAreDeterministic() throws Exception {
+        Random random = new Random(7);
+        int vertices = 20_000;
+        float[] vertex = new float[vertices * 3];
+        for (int i = 0; i < vertex.length; i++)
+            vertex[i] = random.nextInt(100) / 7f;
+        int[] indices = new int[vertices * 6];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = random.nextInt(vertices);
+
+        for (float crease : new float[]{180, 60}) {
+            DXMModel expected = null;
+            for (int threads : new int[]{1, 1, 4, 4}) {
+                DXMModel model = model(vertex.clone(), indices.clone(), null);
+
+                //parallel streams run on the pool they are started from
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    pool.submit(() -> DXMConverter.optimizeDXMModel(model, normals(crease))).get();
+                } finally {
+                    pool.shutdown();
+                }
+
+                if (expected == null) {
+                    expected = model;
+                    continue;
+                }
+                assertArrayEquals(expected.vn, model.vn, "crease=" + crease + " threads=" + threads);
+                assertArrayEquals(expected.groups[0].ni, model.groups[0].ni, "crease=" + crease + " threads=" + threads);
+            }
+
+            Set<String> distinct = new HashSet<>(Arrays.asList(expected.vn));
+            assertEquals(expected.vn.length, distinct.size(), "normals are welded");
+        }
+    }
+
+    @Test
+    public void alphaIsOnlyKeptInBinary() {
+        //the same position and rgb, only the alpha differs
+        int[] color = {0x00336699, 0xFF336699, 0xFF336699};
+        float[] vertex = {1, 2, 3, 1, 2, 3, 1, 2, 3};
+
+        int[] expected = {1, 1, 2};
+        DXMColorFormat[] formats = {DXMColorFormat.Ignore, DXMColorFormat.Obj, DXMColorFormat.Binary};
+        for (int i = 0; i < formats.length; i++) {
+            DXMModel model = model(vertex.clone(), new int[]{0, 1, 2}, null);
+            model.color = color.clone();
+
+            DXMOptions options = new DXMOptions();
+            options.colors = formats[i];
+            DXMConverter.optimizeDXMModel(model, options);
+
+            assertEquals(expected[i], model.v.length, formats[i].name());
+            if (formats[i] == DXMColorFormat.Ignore)
+                assertNull(model.vc);
+            else
+                assertEquals(model.v.length, model.vc.length, formats[i].name());
+        }
+    }
+
+    @Test
+    public void colorSplitsDoNotSplitNormals() {
+        //every face of the cube has its own color, so no vertex is shared by color
+        int[] faces = {0, 3, 2, 1, 4, 5, 6, 7, 0, 1, 5, 4, 3, 7, 6, 2, 0, 4, 7, 3, 1, 2, 6, 5};
+        float[] vertex = new float[faces.length * 3];
+        int[] color = new int[faces.length];
+        int[] indices = new int[36];
+        for (int f = 0; f < 6; f++) {
+            for (int k = 0; k < 4; k++) {
+                System.arraycopy(CUBE, faces[f * 4 + k] * 3, vertex, (f * 4 + k) * 3, 3);
+                color[f * 4 + k] = 0xFF000000 | f * 40;
+            }
+            int b = f * 4;
+            System.arraycopy(new int[]{b, b + 1, b + 2, b, b + 2, b + 3}, 0, indices, f * 6, 6);
+        }
+
+        DXMModel model = model(vertex, indices, null);
+        model.color = color;
+        DXMConverter.optimizeDXMModel(model, normals(180));
+
+        //the colors keep 24 vertices, but the normals are still smooth across the faces
+        assertEquals(24, model.v.length);
+        assertEquals(8, model.vn.length);
+    }
+
+    private static DXMModel model(float[] vertex, int[] indices, float[] normal) {
+        DXMModel model = new DXMModel();
+        model.vertex = vertex;
+        model.normal = normal;
+
+        DXMGroup group = new DXMGroup();
+        group.index32 = indices;
+        group.length = indices.length;
+        model.groups = new DXMGroup[]{group};
+        return model;
+    }
+
+    private static DXMOptions normals(float crease) {
+        DXMOptions options = new DXMOptions();
+        options.generateNormals = true;
+        options.creaseAngle = crease;
+        return options;
+    }
+
+    //adds the cross product of triangle t (twice its area) times the angle at its corner k
+    private static void addWeighted(float[] vertex, int[] indices, int t, int k, float[] sum) {
+        int a = indices[t + k] * 3, b = indices[t + (k + 1) % 3] * 3, c = indices[t + (k + 2) % 3] * 3;
+        double[] ab = {vertex[b] - vertex[a], vertex[b + 1] - vertex[a + 1], vertex[b + 2] - vertex[a + 2]};
+        double[] ac = {vertex[c] - vertex[a], vertex[c + 1] - vertex[a + 1], vertex[c + 2] - vertex[a + 2]};
+
+        double x = ab[1] * ac[2] - ab[2] * ac[1], y = ab[2] * ac[0] - ab[0] * ac[2], z = ab[0] * ac[1] - ab[1] * ac[0];
+        double cos = (ab[0] * ac[0] + ab[1] * ac[1] + ab[2] * ac[2]) / (Math.sqrt(ab[0] * ab[0] + ab[1] * ab[1] + ab[2] * ab[2]) * Math.sqrt(ac[0] * ac[0] + ac[1] * ac[1] + ac[2] * ac[2]));
+        double angle = Math.acos(Math.max(-1, Math.min(1, cos)));
+
+        sum[0] += (float) (x * angle);
+        sum[1] += (float) (y * angle);
+        sum[2] += (float) (z * angle);
+    }
+
+    private static float[] normalize(float[] v) {
+        float l = (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        return new float[]{v[0] / l, v[1] / l, v[2] / l};
+    }
+
+    private static float[] normal(DXMModel model, int corner) {
+        String[] n = model.vn[model.groups[0].ni[corner]].split(" ");
+        return new float[]{Float.parseFloat(n[0]), Float.parseFloat(n[1]), Float.parseFloat(n[2])};
+    }
+
+    private static void assertNormal(float[] expected, float[] actual, String message) {
+        for (int i = 0; i < 3; i++)
+            assertEquals(expected[i], actual[i], EPSILON, message);
+    }
+}
@@ -0,0 +1,53 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+//not a unit test, run manually: scales DXMObjWriter from one thread up to every core (or the given thread count)
+public class DXMObjWriterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int vertices = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int runs = 3;
+
+        Random random = new Random(1);
+        DXMModel model = new DXMModel();
+        model.v = new String[vertices];
+        model.vn = new String[vertices];
+        model.vt = new String[vertices];
+        for (int i = 0; i < vertices; i++) {
+            model.v[i] = random.nextFloat() * 100 + " " + random.nextFloat() * 100 + " " + random.nextFloat() * 100;
+            model.vn[i] = random.nextFloat() + " " + random.nextFloat() + " " + random.nextFloat();
+            model.vt[i] = random.nextFloat() + " " + random.nextFloat();
+        }
+
+        DXMGroup group = new DXMGroup();
+        group.texture = "bench.png";
+        group.vi = new int[vertices * 6];
+        group.ni = new int[group.vi.length];
+        group.ti = new int[group.vi.length];
+        for (int i = 0; i < group.vi.length; i++)
+            group.vi[i] = group.ni[i] = group.ti[i] = random.nextInt(vertices);
+        model.groups = new DXMGroup[]{group};
+
+        Path folder = Files.createTempDirectory("dxm-bench-");
+        Path obj = folder.resolve("bench.obj");
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                DXMObjWriter.writeOBJ(model, folder, "bench", threads);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            double mb = Files.size(obj) / (1024.0 * 1024.0);
+            System.out.printf("%2d thread(s): %8.1f ms, %8.1f MB/s%n", threads, best / 1e6, mb / (best / 1e9));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DXMObjWriterTest {
+
+    //enough lines and faces to span several chunks
+    private static final int COUNT = 150_000;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void matchesReferenceWithNormalsAndUVs() throws Exception {
+        check(model(true, true));
+    }
+
+    @Test
+    public void matchesReferenceWithNormals() throws Exception {
+        check(model(true, false));
+    }
+
+    @Test
+    public void matchesReferenceWithUVs() throws Exception {
+        check(model(false, true));
+    }
+
+    @Test
+    public void matchesReferenceWithPositionsOnly() throws Exception {
+        check(model(false, false));
+    }
+
+    @Test
+    public void texturesAreCopied() throws Exception {
+        //textures are found next to the dlm or in its Textures folder
+        Path source = folder.resolve("source");
+        Files.createDirectories(source.resolve("Textures"));
+        Files.writeString(source.resolve("a.png"), "a");
+        Files.writeString(source.resolve("Textures").resolve("b.png"), "b");
+
+        DXMModel model = new DXMModel();
+        model.v = new String[]{"0 0 0", "1 0 0", "0 1 0"};
+        model.groups = new DXMGroup[]{group("x\\a.png", 3, model, new Random(1)), group("b.png", 3, model, new Random(2)), group("missing.png", 0, model, new Random(3))};
+
+        Path out = folder.resolve("out");
+        DXMObjWriter.writeOBJ(model, source.resolve("model.dlm").toString(), out, "model", 4, DXMConverter.DXMColorFormat.Obj);
+
+        assertArrayEquals("a".getBytes(), Files.readAllBytes(out.resolve("a.png")));
+        assertArrayEquals("b".getBytes(), Files.readAllBytes(out.resolve("b.png")));
+        assertFalse(Files.exists(out.resolve("missing.png")));
+    }
+
+    @Test
+    public void materialNamesAreUtf8() throws Exception {
+        DXMModel model = new DXMModel();
+        model.v = new String[]{"0 0 0", "1 0 0", "0 1 0"};
+        model.groups = new DXMGroup[]{group("x\\n\u00e4her.png", 3, model, new Random(1)), group("\u65e5\u672c.png", 3, model, new Random(2))};
+
+        Path out = folder.resolve("out");
+        DXMObjWriter.writeOBJ(model, out, "model", 4);
+
+        //usemtl has to match newmtl byte for byte
+        assertArrayEquals(reference(model, "model").getBytes(StandardCharsets.UTF_8), Files.readAllBytes(out.resolve("model.obj")));
+        String mtl = Files.readString(out.resolve("model.mtl"));
+        assertTrue(mtl.contains("newmtl n\u00e4her.png\n"), mtl);
+        assertTrue(mtl.contains("newmtl \u65e5\u672c.png\n"), mtl);
+    }
+
+    @Test
+    public void colorsAsVertexLines() throws Exception {
+        //red in the lowest byte, 0x33 steps are exact fifths
+        DXMModel model = colored(new float[]{0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0}, new int[]{0xFF0000FF, 0xFF336699, 0x00FFCC00, 0x80FF0000}, new int[]{0, 1, 2, 3, 1, 2});
+        DXMConverter.DXMOptions options = new DXMConverter.DXMOptions();
+        DXMConverter.optimizeDXMModel(model, options);
+        DXMObjWriter.writeOBJ(model, folder, "model", 4, options.colors);
+
+        //the last vertex only differs in color, so it stays its own vertex
+        String[] lines = Files.readString(folder.resolve("model.obj")).split("\n");
+        assertArrayEquals(new String[]{"v 0 0 0 1 0 0", "v 1 0 0 0.6 0.4 0.2", "v 0 1 0 0 0.8 1", "v 0 0 0 0 0 1"}, Arrays.copyOfRange(lines, 1, 5));
+        assertEquals("f 1 2 3", lines[8]);
+        assertEquals("f 4 2 3", lines[9]);
+        assertFalse(Files.exists(folder.resolve("model.colors")));
+    }
+
+    @Test
+    public void binaryColorsMatchVertexLines() throws Exception {
+        Random random = new Random(3);
+        int vertices = COUNT;
+        float[] vertex = new float[vertices * 3];
+        int[] color = new int[vertices];
+        for (int i = 0; i < vertices; i++) {
+            //few distinct positions and colors, so plenty of vertices weld
+            for (int k = 0; k < 3; k++)
+                vertex[i * 3 + k] = random.nextInt(8) / 4f;
+            color[i] = random.nextInt(4) * 0x01020304;
+        }
+        int[] indices = new int[vertices * 3];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = random.nextInt(vertices);
+
+        DXMModel model = colored(vertex.clone(), color, indices.clone());
+        DXMConverter.DXMOptions options = new DXMConverter.DXMOptions();
+        options.colors = DXMConverter.DXMColorFormat.Binary;
+        DXMConverter.optimizeDXMModel(model, options);
+        DXMObjWriter.writeOBJ(model, folder, "model", 4, options.colors);
+
+        List<String> v = Files.readAllLines(folder.resolve("model.obj")).stream().filter(line -> line.startsWith("v ")).toList();
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(folder.resolve("model.colors"))).order(ByteOrder.LITTLE_ENDIAN);
+        int[] colors = new int[bytes.remaining() / Integer.BYTES];
+        bytes.asIntBuffer().get(colors);
+
+        //one color per plain "v x y z" line, in the same order
+        assertEquals(v.size(), colors.length, "colors");
+        for (int i = 0; i < indices.length; i++) {
+            int welded = model.groups[0].vi[i], raw = indices[i];
+            String[] fields = v.get(welded).split(" ");
+            assertEquals(4, fields.length, v.get(welded));
+            for (int k = 0; k < 3; k++)
+                assertEquals(vertex[raw * 3 + k], Float.parseFloat(fields[k + 1]), 0f);
+            assertEquals(color[raw], colors[welded], "corner " + i);
+        }
+    }
+
+    private static DXMModel colored(float[] vertex, int[] color, int[] indices) {
+        DXMModel model = new DXMModel();
+        model.vertex = vertex;
+        model.color = color;
+
+        DXMGroup group = new DXMGroup();
+        group.texture = "colors.png";
+        group.index32 = indices;
+        group.length = indices.length;
+        model.groups = new DXMGroup[]{group};
+        return model;
+    }
+
+    private void check(DXMModel model) throws Exception {
+        byte[] expected = reference(model, "model").getBytes(StandardCharsets.UTF_8);
+
+        for (int threads : new int[]{1, 4}) {
+            Path out = folder.resolve("t" + threads);
+            DXMObjWriter.writeOBJ(model, out, "model", threads);
+            assertArrayEquals(expected, Files.readAllBytes(out.resolve("model.obj")), "threads=" + threads);
+        }
+    }
+
+    private static DXMModel model(boolean normals, boolean uvs) {
+        Random random = new Random(42);
+        DXMModel model = new DXMModel();
+
+        model.v = new String[COUNT];
+        for (int i = 0; i < COUNT; i++)
+            model.v[i] = random.nextInt(1000) + " " + random.nextFloat() + " -" + random.nextInt(10);
+
+        if (normals) {
+            model.vn = new String[COUNT / 2];
+            for (int i = 0; i < model.vn.length; i++)
+                model.vn[i] = "0 " + random.nextFloat() + " 1";
+        }
+
+        if (uvs) {
+            model.vt = new String[COUNT / 3];
+            for (int i = 0; i < model.vt.length; i++)
+                model.vt[i] = random.nextFloat() + " 0.5";
+        }
+
+        //textured, untextured and empty groups
+        model.groups = new DXMGroup[]{group("a\\textures\\a.png", COUNT * 3, model, random), group(null, 30, model, random), group("b.png", 0, model, random), group("c/c.png", 300, model, random)};
+        return model;
+    }
+
+    private static DXMGroup group(String texture, int len, DXMModel model, Random random) {
+        DXMGroup group = new DXMGroup();
+        group.texture = texture;
+        group.vi = new int[len];
+        if (model.vn != null) group.ni = new int[len];
+        if (model.vt != null) group.ti = new int[len];
+
+        for (int i = 0; i < len; i++) {
+            group.vi[i] = random.nextInt(model.v.length);
+            if (group.ni != null) group.ni[i] = random.nextInt(model.vn.length);
+            if (group.ti != null) group.ti[i] = random.nextInt(model.vt.length);
+        }
+
+        return group;
+    }
+
+    //straightforward single threaded export, using the face formats the converter always used
+    private static String reference(DXMModel model, String name) {
+        boolean normals = model.vn != null;
+        boolean uvs = model.vt != null;
+
+        StringBuilder sb = new StringBuilder("mtllib " + name + ".mtl\n");
+        for (String v : model.v) sb.append("v ").append(v).append("\n");
+        if (uvs) for (String vt : model.vt) sb.append("vt ").append(vt).append("\n");
+        if (normals) for (String vn : model.vn) sb.append("vn ").append(vn).append("\n");
+
+        for (DXMGroup group : model.groups) {
+            if (group.texture == null)
+                continue;
+
+            String texture = group.texture.replaceAll("\\\\", "/");
+            texture = texture.substring(texture.lastIndexOf("/") + 1);
+            sb.append("\ng ").append(texture).append("\nusemtl ").append(texture).append("\n");
+
+            for (int i = 0; i < group.vi.length; i += 3) {
+                int x = group.vi[i] + 1, y = group.vi[i + 1] + 1, z = group.vi[i + 2] + 1;
+                int nx = normals ? group.ni[i] + 1 : 0, ny = normals ? group.ni[i + 1] + 1 : 0, nz = normals ? group.ni[i + 2] + 1 : 0;
+                int ux = uvs ? group.ti[i] + 1 : 0, uy = uvs ? group.ti[i + 1] + 1 : 0, uz = uvs ? group.ti[i + 2] + 1 : 0;
+
+                String face;
+                if (normals && uvs)
+                    face = "%d/%d/%d %d/%d/%d %d/%d/%d".formatted(x, ux, nx, y, uy, ny, z, uz, nz);
+                else if (normals)
+                    face = "%d//%d %d//%d %d//%d".formatted(x, nx, y, ny, z, nz);
+                else if (uvs)
+                    face = "%d/%d %d/%d %d/%d".formatted(x, ux, y, uy, z, uz);
+                else
+                    face = "%d %d %d".formatted(x, y, z);
+
+                sb.append("f ").append(face).append("\n");
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package dxmconverter;
+
+import dxmconverter.DXMConverter.DXMGroup;
+import dxmconverter.DXMConverter.DXMModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DXMProxyTest {
+
+    @Test
+    public void emptyModel() {
+        DXMModel model = new DXMModel();
+        model.vertex = new float[0];
+        model.groups = new DXMGroup[0];
+        assertEquals(0, DXMProxy.build(model).getTriangleCount(), "no groups");
+
+        model.groups = new DXMGroup[]{new DXMGroup(), group16(new short[0])};
+        DXMProxy proxy = DXMProxy.build(model);
+        assertEquals(0, proxy.getTriangleCount(), "no indices");
+        assertEquals(0, proxy.getVertexCount(), "no indices");
+    }
+
+    @Test
+    public void sampleIsBounded() {
+        Random random = new Random(1);
+        int vertices = 50_000, triangles = 200_000;
+
+        DXMModel model = new DXMModel();
+        model.vertex = new float[vertices * 3];
+        for (int i = 0; i < model.vertex.length; i++)
+            model.vertex[i] = random.nextFloat();
+
+        //split across groups, so the stride has to carry over between them
+        int[] a = new int[triangles * 3 / 2], b = new int[triangles * 3 - a.length];
+        for (int i = 0; i < a.length; i++) a[i] = random.nextInt(vertices);
+        for (int i = 0; i < b.length; i++) b[i] = random.nextInt(vertices);
+        model.groups = new DXMGroup[]{group32(a), group32(b)};
+
+        for (int max : new int[]{1, 100, 1000}) {
+            DXMProxy proxy = DXMProxy.build(model, max, 1 << 10);
+            assertTrue(proxy.getTriangleCount() <= max, "max=" + max + " got " + proxy.getTriangleCount());
+            assertTrue(proxy.getVertexCount() <= max * 3, "max=" + max + " got " + proxy.getVertexCount());
+            for (int index : proxy.indices)
+                assertTrue(index >= 0 && index < proxy.getVertexCount());
+        }
+
+        assertTrue(DXMProxy.build(model, 1000, 1 << 10).getTriangleCount() > 900, "sample should use most of its budget");
+    }
+
+    @Test
+    public void collapsedTrianglesAreDropped() {
+        DXMModel model = new DXMModel();
+        model.vertex = new float[]{
+                0, 0, 0,
+                10, 0, 0,
+                0, 10, 10,
+                //a tiny triangle, all inside the first cell
+                0.01f, 0, 0,
+                0, 0.01f, 0,
+        };
+        model.groups = new DXMGroup[]{group32(new int[]{0, 1, 2, 0, 3, 4})};
+
+        DXMProxy proxy = DXMProxy.build(model, 100, 4);
+        assertEquals(1, proxy.getTriangleCount(), "triangles");
+
+        //the sampled corners sharing a cell are averaged into one vertex (vertex 0 is sampled twice)
+        assertEquals(3, proxy.getVertexCount(), "vertices");
+        assertArrayEquals(new float[]{0.01f / 4, 0.01f / 4, 0, 10, 0, 0, 0, 10, 10}, proxy.vertices);
+    }
+
+    @Test
+    public void shortIndicesAreUnsigned() {
+        int vertices = 40_000;
+        DXMModel model = new DXMModel();
+        model.vertex = new float[vertices * 3];
+        for (int i = 0; i < vertices; i++)
+            model.vertex[i * 3] = i;
+
+        model.groups = new DXMGroup[]{group16(new short[]{0, (short) 39_999, (short) 20_000})};
+
+        DXMProxy proxy = DXMProxy.build(model);
+        assertEquals(1, proxy.getTriangleCount(), "triangles");
+        assertEquals(39_999f, proxy.vertices[3], 0f);
+    }
+
+    private static DXMGroup group32(int[] indices) {
+        DXMGroup group = new DXMGroup();
+        group.index32 = indices;
+        group.length = indices.length;
+        return group;
+    }
+
+    private static DXMGroup group16(short[] indices) {
+        DXMGroup group = new DXMGroup();
+        group.index16 = indices;
+        group.length = indices.length;
+        return group;
+    }
+}